@@ -1,6 +1,10 @@
 package com.t1labredes;
 
 import com.t1labredes.device.Device;
+import com.t1labredes.log.Log;
+import com.t1labredes.log.ProgressReporter;
+import com.t1labredes.messaging.Messenger;
+import com.t1labredes.protocol.MerkleTree;
 import com.t1labredes.protocol.Protocol;
 import com.t1labredes.server.Server;
 
@@ -10,18 +14,29 @@ import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketTimeoutException;
+import java.nio.channels.FileChannel;
 import java.security.MessageDigest;
 import java.util.*;
 import java.util.Base64;
 
 public class ConsoleInterface implements Runnable {
 
+    private static final int MAX_SEGMENT_REPAIRS = 3;
+    private static final int MAX_HASH_RESENDS = 5;
+
+    private enum ChunkResult { ACKED, REPAIR, RESEND_HASH, FAILED }
+
+    // Resposta a um CHUNK ou SEGMENT; em REPAIR e RESEND_HASH, segment é o segmento
+    // a reenviar e, em REPAIR, rejection é a contagem de rejeições do destino
+    private record Reply(ChunkResult result, int segment, int rejection) {}
+
     @Override
     public void run() {
         Scanner scanner = new Scanner(System.in);
         System.out.println("Digite um comando (devices, talk <nome> <msg>, sendfile <nome> <arquivo>):");
 
         while (true) {
+            Log.flush();
             System.out.print("> ");
             String input = scanner.nextLine().trim();
             String[] tokens = input.split(" ");
@@ -63,7 +78,6 @@ public class ConsoleInterface implements Runnable {
 
         String targetName = tokens[1];
         String messageText = String.join(" ", Arrays.copyOfRange(tokens, 2, tokens.length));
-        String id = String.valueOf(System.nanoTime());
 
         Device target = Server.getInstance().getActiveDevices().get(targetName);
         if (target == null) {
@@ -71,41 +85,14 @@ public class ConsoleInterface implements Runnable {
             return;
         }
 
-        String fullMessage = Protocol.TALK + " " + id + " " + messageText;
-
-        try (DatagramSocket socket = new DatagramSocket()) {
-            socket.setSoTimeout(2000);
-            byte[] data = fullMessage.getBytes();
-            DatagramPacket packet = new DatagramPacket(data, data.length, target.getIpAddress(), target.getPort());
-            boolean ackReceived = false;
-
-            for (int attempt = 1; attempt <= 3; attempt++) {
-                socket.send(packet);
-                System.out.printf("[CLI] TALK enviado a %s (tentativa %d)%n", targetName, attempt);
-
-                try {
-                    byte[] buffer = new byte[1024];
-                    DatagramPacket response = new DatagramPacket(buffer, buffer.length);
-                    socket.receive(response);
-                    String responseMessage = new String(response.getData(), 0, response.getLength());
-
-                    if (responseMessage.equals(Protocol.ACK + " " + id)) {
-                        System.out.printf("[CLI] ACK recebido de %s!%n", targetName);
-                        ackReceived = true;
-                        break;
-                    }
-                    else
-                        System.out.println("[CLI] Mensagem desconhecida");
-                } catch (SocketTimeoutException e) {
-                    System.out.println("[CLI] Timeout aguardando ACK...");
-                }
-            }
-
-            if (!ackReceived) {
-                System.out.println("[CLI] Falha ao receber ACK após 3 tentativas.");
-            }
-        } catch (Exception e) {
-            System.err.printf("[CLI] Erro ao enviar TALK: %s%n", e.getMessage());
+        try {
+            Messenger.getInstance().talk(target, messageText).thenAccept(acked -> {
+                if (acked) Log.info("[CLI] ACK recebido de %s para \"%s\"", targetName, messageText);
+                else Log.info("[CLI] Falha ao receber ACK de %s para \"%s\"", targetName, messageText);
+            });
+            Log.info("[CLI] TALK enfileirado para %s", targetName);
+        } catch (RuntimeException e) {
+            Log.error("[CLI] Erro ao enviar TALK: %s", e.getMessage());
         }
     }
 
@@ -132,9 +119,15 @@ public class ConsoleInterface implements Runnable {
 
         long fileSize = file.length();
         String id = String.valueOf(System.nanoTime());
-        String fileMsg = Protocol.FILE + " " + id + " " + file.getName() + " " + fileSize;
 
         try (DatagramSocket socket = new DatagramSocket()) {
+            String[] segmentHashes = MerkleTree.computeLeaves(file, MerkleTree.SEGMENT_SIZE);
+            String merkleRoot = MerkleTree.computeRoot(segmentHashes);
+            Log.info("[CLI] Árvore de hash calculada (%d segmentos)", segmentHashes.length);
+
+            String fileMsg = Protocol.FILE + " " + id + " " + file.getName() + " " + fileSize
+                    + " " + MerkleTree.SEGMENT_SIZE + " " + merkleRoot;
+
             socket.setSoTimeout(2000);
             byte[] sendData = fileMsg.getBytes();
             DatagramPacket sendPacket = new DatagramPacket(sendData, sendData.length, target.getIpAddress(), target.getPort());
@@ -142,7 +135,7 @@ public class ConsoleInterface implements Runnable {
             boolean ackReceived = false;
             for (int attempt = 1; attempt <= 5; attempt++) {
                 socket.send(sendPacket);
-                System.out.printf("[CLI] FILE enviado (tentativa %d)%n", attempt);
+                Log.info("[CLI] FILE enviado (tentativa %d)", attempt);
                 try {
                     byte[] buffer = new byte[1024];
                     DatagramPacket response = new DatagramPacket(buffer, buffer.length);
@@ -150,87 +143,157 @@ public class ConsoleInterface implements Runnable {
                     String ackMsg = new String(response.getData(), 0, response.getLength());
 
                     if (ackMsg.equals(Protocol.ACK + " " + id)) {
-                        System.out.println("[CLI] ACK recebido! Iniciando envio de blocos...");
+                        Log.info("[CLI] ACK recebido! Iniciando envio de blocos...");
                         ackReceived = true;
                         break;
                     }
                     else
-                        System.out.println("[CLI] Mensagem desconhecida");
+                        Log.info("[CLI] Mensagem desconhecida");
 
                 } catch (SocketTimeoutException e) {
-                    System.out.println("[CLI] Timeout aguardando ACK...");
+                    Log.info("[CLI] Timeout aguardando ACK...");
                     if (attempt >= 4) Thread.sleep((attempt - 3) * 500L);
                 }
             }
 
             if (!ackReceived) {
-                System.out.println("[CLI] Falha ao iniciar envio de arquivo.");
+                Log.info("[CLI] Falha ao iniciar envio de arquivo.");
                 return;
             }
 
-            sendChunks(file, id, target);
+            sendChunks(file, id, target, segmentHashes);
         } catch (Exception e) {
-            System.err.printf("[CLI] Erro ao enviar FILE: %s%n", e.getMessage());
+            Log.error("[CLI] Erro ao enviar FILE: %s", e.getMessage());
         }
     }
 
-    private void sendChunks(File file, String id, Device target) {
+    private void sendChunks(File file, String id, Device target, String[] segmentHashes) {
         try (FileInputStream fis = new FileInputStream(file);
              DatagramSocket socket = new DatagramSocket()) {
 
             socket.setSoTimeout(2000);
-            if (!sendChunksLoop(fis, socket, id, target)) return;
+            if (!sendChunksLoop(fis, socket, id, target, segmentHashes)) return;
 
-            System.out.println("[CLI] Todos os CHUNKs foram enviados com sucesso!");
+            Log.info("[CLI] Todos os CHUNKs foram enviados com sucesso!");
             sendEndMessage(file, socket, id, target);
 
         } catch (Exception e) {
-            System.err.printf("[CLI] Erro durante envio dos CHUNKs: %s%n", e.getMessage());
+            Log.error("[CLI] Erro durante envio dos CHUNKs: %s", e.getMessage());
         }
     }
 
-    private boolean sendChunksLoop(FileInputStream fis, DatagramSocket socket, String id, Device target) throws Exception {
+    private boolean sendChunksLoop(FileInputStream fis, DatagramSocket socket, String id, Device target,
+                                   String[] segmentHashes) throws Exception {
         final int MAX_PACKET_SIZE = 1024;
+        FileChannel channel = fis.getChannel();
         int sequence = 0;
-        long totalSentBytes = 0;
-        long totalFileSize = fis.getChannel().size();
+        long totalFileSize = channel.size();
+        ProgressReporter progress = new ProgressReporter("[CLI] Progresso:", totalFileSize);
+
+        int segment = -1;
+        List<Integer> segmentStartSeqs = new ArrayList<>();
+        int[] repairs = new int[segmentHashes.length];
+        int[] hashResends = new int[segmentHashes.length];
 
         while (true) {
+            long position = channel.position();
+            if (position >= totalFileSize) break;
+
+            // Cada segmento começa com um SEGMENT carregando o seu hash
+            int currentSegment = (int) (position / MerkleTree.SEGMENT_SIZE);
+            if (currentSegment != segment) {
+                segment = currentSegment;
+                if (segmentStartSeqs.size() == segment) segmentStartSeqs.add(sequence);
+
+                Reply reply = sendSegmentHash(socket, target, id, segment, segmentHashes[segment], repairs);
+                if (reply.result() == ChunkResult.FAILED) {
+                    Log.error("[CLI] Falha: SEGMENT %d não confirmado.", segment);
+                    return false;
+                }
+                if (reply.result() != ChunkResult.ACKED) {
+                    if (!rewindToSegment(channel, reply, segmentStartSeqs, repairs, hashResends)) return false;
+                    sequence = segmentStartSeqs.get(reply.segment());
+                    segment = -1;
+                    continue;
+                }
+            }
+
             String header = Protocol.CHUNK + " " + id + " " + sequence + " ";
             byte[] headerBytes = header.getBytes();
 
             int maxPayloadSize = MAX_PACKET_SIZE - headerBytes.length;
             int maxRawSize = (int) Math.floor(maxPayloadSize * 0.75);
 
-            byte[] rawBuffer = new byte[maxRawSize];
+            // Um CHUNK nunca atravessa o limite de um segmento
+            long segmentEnd = Math.min((long) (segment + 1) * MerkleTree.SEGMENT_SIZE, totalFileSize);
+            byte[] rawBuffer = new byte[(int) Math.min(maxRawSize, segmentEnd - position)];
             int bytesRead = fis.read(rawBuffer);
             if (bytesRead == -1) break;
 
             byte[] chunkData = Arrays.copyOf(rawBuffer, bytesRead);
-            boolean sent = sendChunk(socket, target, headerBytes, chunkData, id, sequence, bytesRead, totalFileSize);
+            Reply reply = sendChunk(socket, target, headerBytes, chunkData, id, sequence, segment, repairs,
+                    bytesRead, totalFileSize);
 
-            if (!sent) {
-                System.err.printf("[CLI] Falha: CHUNK seq=%d não confirmado após o limite de tentativas.%n", sequence);
+            if (reply.result() == ChunkResult.FAILED) {
+                Log.error("[CLI] Falha: CHUNK seq=%d não confirmado após o limite de tentativas.", sequence);
                 return false;
             }
 
-            totalSentBytes += bytesRead;
+            if (reply.result() != ChunkResult.ACKED) {
+                // Volta ao início do segmento e reenvia também o seu SEGMENT
+                if (!rewindToSegment(channel, reply, segmentStartSeqs, repairs, hashResends)) return false;
+                sequence = segmentStartSeqs.get(reply.segment());
+                segment = -1;
+                continue;
+            }
+
             sequence++;
+            progress.update(channel.position());
+        }
 
-            int progress = (int) ((100.0 * totalSentBytes) / totalFileSize);
-            System.out.printf("[CLI] Progresso: %d%% (%d/%d bytes)%n", progress, totalSentBytes, totalFileSize);
+        return true;
+    }
+
+    /**
+     * Só segmentos corrompidos consomem MAX_SEGMENT_REPAIRS; pedidos de
+     * reenvio do hash têm limite próprio.
+     */
+    private boolean rewindToSegment(FileChannel channel, Reply reply, List<Integer> segmentStartSeqs,
+                                    int[] repairs, int[] hashResends) throws IOException {
+        int segment = reply.segment();
+        if (segment >= segmentStartSeqs.size()) {
+            Log.error("[CLI] Falha: reenvio pedido para segmento %d ainda não enviado.", segment);
+            return false;
         }
 
+        if (reply.result() == ChunkResult.REPAIR) {
+            repairs[segment] = reply.rejection();
+            if (repairs[segment] > MAX_SEGMENT_REPAIRS) {
+                Log.error("[CLI] Falha: segmento %d corrompido após %d reenvios.", segment, MAX_SEGMENT_REPAIRS);
+                return false;
+            }
+            Log.info("[CLI] Segmento %d corrompido no destino, reenviando (reenvio %d)", segment, repairs[segment]);
+        } else {
+            if (++hashResends[segment] > MAX_HASH_RESENDS) {
+                Log.error("[CLI] Falha: hash do segmento %d não chegou ao destino.", segment);
+                return false;
+            }
+            Log.info("[CLI] Hash do segmento %d ausente no destino, reenviando SEGMENT", segment);
+        }
+
+        channel.position((long) segment * MerkleTree.SEGMENT_SIZE);
         return true;
     }
 
-    private boolean sendChunk(
+    private Reply sendChunk(
             DatagramSocket socket,
             Device target,
             byte[] headerBytes,
             byte[] data,
             String id,
             int sequence,
+            int segment,
+            int[] repairs,
             long totalSentBytes,
             long totalFileSize
     ) throws Exception {
@@ -250,11 +313,13 @@ public class ConsoleInterface implements Runnable {
 
         for (int attempt = 1; attempt <= maxRetries; attempt++) {
             socket.send(packet);
-            System.out.printf("[CLI] CHUNK seq=%d enviado (tentativa %d)%n", sequence, attempt);
+            if (Log.isTraceEnabled()) Log.trace("[CLI] CHUNK seq=%d enviado (tentativa %d)", sequence, attempt);
 
-            if (waitForChunkAck(socket, id)) {
-                System.out.printf("[CLI] ACK recebido para CHUNK seq=%d%n", sequence);
-                return true;
+            Reply reply = parseReply(waitForChunkAck(socket), id, String.valueOf(sequence), segment, repairs);
+            if (reply != null) {
+                if (reply.result() == ChunkResult.ACKED && Log.isTraceEnabled())
+                    Log.trace("[CLI] ACK recebido para CHUNK seq=%d", sequence);
+                return reply;
             }
 
             if (attempt >= 4) {
@@ -264,7 +329,48 @@ public class ConsoleInterface implements Runnable {
             }
         }
 
-        return false;
+        return new Reply(ChunkResult.FAILED, segment, 0);
+    }
+
+    private Reply sendSegmentHash(DatagramSocket socket, Device target, String id, int segment, String hash,
+                                  int[] repairs) throws IOException {
+        String segmentMessage = Protocol.SEGMENT + " " + id + " " + segment + " " + hash;
+        byte[] segmentData = segmentMessage.getBytes();
+        DatagramPacket packet = new DatagramPacket(segmentData, segmentData.length, target.getIpAddress(), target.getPort());
+
+        for (int attempt = 1; attempt <= 5; attempt++) {
+            socket.send(packet);
+            Log.debug("[CLI] SEGMENT %d enviado (tentativa %d)", segment, attempt);
+            Reply reply = parseReply(waitForChunkAck(socket), id, "segment " + segment, segment, repairs);
+            if (reply != null) return reply;
+        }
+        return new Reply(ChunkResult.FAILED, segment, 0);
+    }
+
+    /**
+     * Interpreta "ACK <id> <confirmado>", "NACK <id> segment <k> <n>" (n-ésima
+     * rejeição do segmento k por corrupção) ou "NACK <id> hash <k>" para um
+     * segmento já enviado. Uma rejeição já tratada é um NACK atrasado e, como
+     * qualquer outra resposta (ACK atrasado, outro envio), retorna null.
+     */
+    private Reply parseReply(String response, String id, String acked, int segment, int[] repairs) {
+        if (response == null) return null;
+        if (response.equals(Protocol.ACK + " " + id + " " + acked)) return new Reply(ChunkResult.ACKED, segment, 0);
+
+        String nackPrefix = Protocol.NACK + " " + id + " ";
+        if (!response.startsWith(nackPrefix)) return null;
+        String[] parts = response.substring(nackPrefix.length()).split(" ");
+        try {
+            int bad = Integer.parseInt(parts[1]);
+            if (bad > segment) return null;
+
+            if (parts[0].equals("hash")) return new Reply(ChunkResult.RESEND_HASH, bad, 0);
+            if (parts[0].equals("segment") && parts.length >= 3) {
+                int rejection = Integer.parseInt(parts[2]);
+                return rejection > repairs[bad] ? new Reply(ChunkResult.REPAIR, bad, rejection) : null;
+            }
+        } catch (RuntimeException ignored) {}
+        return null;
     }
 
     private void sendEndMessage(File file, DatagramSocket socket, String id, Device target) {
@@ -276,26 +382,25 @@ public class ConsoleInterface implements Runnable {
 
             for (int attempt = 1; attempt <= 3; attempt++) {
                 socket.send(packet);
-                System.out.printf("[CLI] END enviado (tentativa %d)%n", attempt);
+                Log.info("[CLI] END enviado (tentativa %d)", attempt);
                 if (waitForEndAck(socket, id)) return;
             }
 
-            System.err.println("[CLI] Falha ao validar a transferência com END.");
+            Log.error("[CLI] Falha ao validar a transferência com END.");
         } catch (Exception e) {
-            System.err.printf("[CLI] Erro ao enviar END: %s%n", e.getMessage());
+            Log.error("[CLI] Erro ao enviar END: %s", e.getMessage());
         }
     }
 
-    private boolean waitForChunkAck(DatagramSocket socket, String expectedId) throws IOException {
+    private String waitForChunkAck(DatagramSocket socket) throws IOException {
         byte[] buffer = new byte[1024];
         DatagramPacket response = new DatagramPacket(buffer, buffer.length);
 
         try {
             socket.receive(response);
-            String responseMsg = new String(response.getData(), 0, response.getLength()).trim();
-            return responseMsg.equals("ACK " + expectedId);
+            return new String(response.getData(), 0, response.getLength()).trim();
         } catch (SocketTimeoutException e) {
-            return false;
+            return null;
         }
     }
 
@@ -308,18 +413,18 @@ public class ConsoleInterface implements Runnable {
             String resp = new String(response.getData(), 0, response.getLength());
 
             if (resp.equals(Protocol.ACK + " " + id)) {
-                System.out.println("[CLI] ACK final recebido! Transferência concluída.");
+                Log.info("[CLI] ACK final recebido! Transferência concluída.");
                 return true;
             } else if (resp.startsWith(Protocol.NACK)) {
-                System.err.println("[CLI] NACK recebido: " + resp);
+                Log.error("[CLI] NACK recebido: " + resp);
             }
             else
-                System.out.println("[CLI] Mensagem desconhecida");
+                Log.info("[CLI] Mensagem desconhecida");
 
         } catch (SocketTimeoutException e) {
-            System.out.println("[CLI] Timeout aguardando ACK final...");
+            Log.info("[CLI] Timeout aguardando ACK final...");
         } catch (IOException e) {
-            System.err.printf("[CLI] Erro ao aguardar ACK final: %s%n", e.getMessage());
+            Log.error("[CLI] Erro ao aguardar ACK final: %s", e.getMessage());
         }
 
         return false;
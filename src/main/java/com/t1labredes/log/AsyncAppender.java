@@ -0,0 +1,177 @@
+package com.t1labredes.log;
+
+import java.io.PrintStream;
+
+/**
+ * Buffer circular de tamanho fixo esvaziado por uma thread dedicada.
+ * Quem registra só copia o formato e os argumentos; a formatação e a
+ * escrita no console acontecem fora da thread que envia os pacotes.
+ */
+class AsyncAppender implements Runnable {
+    private final int capacity;
+    private final Level[] levels;
+    private final String[] formats;
+    private final Object[][] args;
+    private final boolean[] inline;
+
+    private int head = 0;
+    private int size = 0;
+    private long enqueued = 0;
+    private long written = 0;
+    private long dropped = 0;
+
+    // Última saída foi uma linha de progresso redesenhada com '\r'
+    private boolean midLine = false;
+
+    AsyncAppender(int capacity) {
+        this.capacity = capacity;
+        this.levels = new Level[capacity];
+        this.formats = new String[capacity];
+        this.args = new Object[capacity][];
+        this.inline = new boolean[capacity];
+    }
+
+    static AsyncAppender start(int capacity) {
+        AsyncAppender appender = new AsyncAppender(capacity);
+        Thread writer = new Thread(appender, "log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(appender::flush));
+        return appender;
+    }
+
+    /**
+     * Com o buffer cheio, WARN e ERROR aguardam espaço; os demais níveis
+     * são descartados e contabilizados.
+     */
+    synchronized void append(Level level, String format, Object[] arguments, boolean inlineEntry) {
+        while (size == capacity) {
+            if (level.compareTo(Level.WARN) < 0) {
+                dropped++;
+                return;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+
+        int slot = (head + size) % capacity;
+        levels[slot] = level;
+        formats[slot] = format;
+        args[slot] = arguments;
+        inline[slot] = inlineEntry;
+        size++;
+        enqueued++;
+        notifyAll();
+    }
+
+    /**
+     * Aguarda até que tudo o que foi registrado antes da chamada tenha sido
+     * escrito, e encerra uma linha de progresso pendente.
+     */
+    void flush() {
+        synchronized (this) {
+            long target = enqueued;
+            long deadline = System.currentTimeMillis() + 1000;
+            while (written < target) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) break;
+                try {
+                    wait(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        }
+        synchronized (System.out) {
+            if (midLine) {
+                System.out.println();
+                midLine = false;
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        Level[] batchLevels = new Level[capacity];
+        String[] batchFormats = new String[capacity];
+        Object[][] batchArgs = new Object[capacity][];
+        boolean[] batchInline = new boolean[capacity];
+
+        while (true) {
+            int count;
+            long lost;
+            synchronized (this) {
+                while (size == 0) {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                count = size;
+                for (int i = 0; i < count; i++) {
+                    int slot = (head + i) % capacity;
+                    batchLevels[i] = levels[slot];
+                    batchFormats[i] = formats[slot];
+                    batchArgs[i] = args[slot];
+                    batchInline[i] = inline[slot];
+                    formats[slot] = null;
+                    args[slot] = null;
+                }
+                head = (head + count) % capacity;
+                size = 0;
+                lost = dropped;
+                dropped = 0;
+                notifyAll();
+            }
+
+            synchronized (System.out) {
+                if (lost > 0) writeLine(System.err, "[Log] " + lost + " mensagens descartadas");
+                for (int i = 0; i < count; i++) {
+                    write(batchLevels[i], batchFormats[i], batchArgs[i], batchInline[i]);
+                    batchFormats[i] = null;
+                    batchArgs[i] = null;
+                }
+                System.out.flush();
+                System.err.flush();
+            }
+
+            synchronized (this) {
+                written += count;
+                notifyAll();
+            }
+        }
+    }
+
+    private void write(Level level, String format, Object[] arguments, boolean inlineEntry) {
+        String message;
+        try {
+            message = arguments == null || arguments.length == 0 ? format : String.format(format, arguments);
+        } catch (RuntimeException e) {
+            message = format;
+        }
+
+        if (inlineEntry) {
+            System.out.print("\r" + message);
+            midLine = true;
+            return;
+        }
+
+        PrintStream stream = level.compareTo(Level.WARN) >= 0 ? System.err : System.out;
+        writeLine(stream, message);
+    }
+
+    private void writeLine(PrintStream stream, String message) {
+        if (midLine) {
+            System.out.println();
+            System.out.flush();
+            midLine = false;
+        }
+        stream.println(message);
+    }
+}
@@ -0,0 +1,15 @@
+package com.t1labredes.log;
+
+public enum Level {
+    TRACE, DEBUG, INFO, WARN, ERROR;
+
+    public static Level parse(String value) {
+        if (value == null || value.isBlank()) return INFO;
+        try {
+            return Level.valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[Log] LOG_LEVEL inválido: " + value + ", usando INFO");
+            return INFO;
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.t1labredes.log;
+
+/**
+ * Registro com níveis e escrita assíncrona. O nível vem da variável de
+ * ambiente LOG_LEVEL (TRACE, DEBUG, INFO, WARN, ERROR; padrão INFO).
+ * Por ser lido uma única vez, o teste de nível desabilitado é constante
+ * para o JIT; chamadas por pacote devem ser protegidas com
+ * {@link #isTraceEnabled()} para não alocar os argumentos.
+ */
+public final class Log {
+    private static final Level LEVEL = Level.parse(System.getenv("LOG_LEVEL"));
+    private static final AsyncAppender APPENDER = AsyncAppender.start(8192);
+
+    private Log() {}
+
+    public static boolean isEnabled(Level level) {
+        return level.compareTo(LEVEL) >= 0;
+    }
+
+    public static boolean isTraceEnabled() {
+        return LEVEL == Level.TRACE;
+    }
+
+    public static boolean isDebugEnabled() {
+        return LEVEL.compareTo(Level.DEBUG) <= 0;
+    }
+
+    public static void trace(String format, Object... args) {
+        if (isTraceEnabled()) APPENDER.append(Level.TRACE, format, args, false);
+    }
+
+    public static void debug(String format, Object... args) {
+        if (isDebugEnabled()) APPENDER.append(Level.DEBUG, format, args, false);
+    }
+
+    public static void info(String format, Object... args) {
+        if (isEnabled(Level.INFO)) APPENDER.append(Level.INFO, format, args, false);
+    }
+
+    public static void warn(String format, Object... args) {
+        if (isEnabled(Level.WARN)) APPENDER.append(Level.WARN, format, args, false);
+    }
+
+    public static void error(String format, Object... args) {
+        APPENDER.append(Level.ERROR, format, args, false);
+    }
+
+    /**
+     * Redesenha a linha de progresso atual em vez de escrever uma nova.
+     */
+    static void progress(String format, Object... args) {
+        if (isEnabled(Level.INFO)) APPENDER.append(Level.INFO, format, args, true);
+    }
+
+    /**
+     * Bloqueia até que as mensagens já registradas tenham sido escritas.
+     */
+    public static void flush() {
+        APPENDER.flush();
+    }
+}
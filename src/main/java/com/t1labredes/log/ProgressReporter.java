@@ -0,0 +1,35 @@
+package com.t1labredes.log;
+
+/**
+ * Barra de progresso redesenhada na mesma linha, limitada a poucas
+ * atualizações por segundo independentemente da taxa de CHUNKs.
+ */
+public class ProgressReporter {
+    private static final long MIN_INTERVAL_MS = 250;
+    private static final int BAR_WIDTH = 30;
+
+    private final String label;
+    private final long total;
+    private long lastUpdate = 0;
+    private int lastPercent = -1;
+
+    public ProgressReporter(String label, long total) {
+        this.label = label;
+        this.total = total;
+    }
+
+    public void update(long done) {
+        long now = System.currentTimeMillis();
+        if (done < total && now - lastUpdate < MIN_INTERVAL_MS) return;
+
+        int percent = total == 0 ? 100 : (int) ((100.0 * done) / total);
+        if (percent == lastPercent && done < total) return;
+
+        lastUpdate = now;
+        lastPercent = percent;
+
+        int filled = percent * BAR_WIDTH / 100;
+        String bar = "#".repeat(filled) + " ".repeat(BAR_WIDTH - filled);
+        Log.progress("%s [%s] %3d%% (%d/%d bytes)", label, bar, percent, done, total);
+    }
+}
@@ -0,0 +1,48 @@
+package com.t1labredes.messaging;
+
+import com.t1labredes.device.Device;
+
+import java.net.SocketException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Mantém um {@link TalkChannel} por dispositivo, criado no primeiro envio
+ * e reaproveitado pelos seguintes enquanto não for fechado por inatividade.
+ */
+public class Messenger {
+
+    private static final Messenger instance = new Messenger();
+    private final Map<String, TalkChannel> channels = new ConcurrentHashMap<>();
+
+    public static Messenger getInstance() {
+        return instance;
+    }
+
+    /**
+     * Envia a mensagem sem bloquear; o resultado indica se o ACK foi recebido.
+     */
+    public CompletableFuture<Boolean> talk(Device target, String text) {
+        while (true) {
+            TalkChannel channel = channels.computeIfAbsent(target.getName(), name -> openChannel(target));
+            channel.updateTarget(target);
+            CompletableFuture<Boolean> result = channel.send(text);
+            if (result != null) return result;
+            channels.remove(target.getName(), channel);
+        }
+    }
+
+    private TalkChannel openChannel(Device target) {
+        try {
+            TalkChannel channel = new TalkChannel(target,
+                    closed -> channels.remove(closed.getTarget().getName(), closed));
+            Thread thread = new Thread(channel, "talk-" + target.getName());
+            thread.setDaemon(true);
+            thread.start();
+            return channel;
+        } catch (SocketException e) {
+            throw new IllegalStateException("não foi possível abrir o canal para " + target.getName(), e);
+        }
+    }
+}
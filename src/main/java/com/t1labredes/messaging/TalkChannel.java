@@ -0,0 +1,200 @@
+package com.t1labredes.messaging;
+
+import com.t1labredes.device.Device;
+import com.t1labredes.log.Log;
+import com.t1labredes.protocol.Protocol;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Canal de mensagens de longa duração com um dispositivo. As mensagens
+ * enfileiradas enquanto um lote aguarda confirmação são agrupadas no
+ * próximo datagrama:
+ *
+ *   TALKS <canal> <id> <tamanho> <mensagem> <id> <tamanho> <mensagem> ...
+ *
+ * Os ids são sequenciais dentro do canal e o destino responde com um ACK
+ * cumulativo (ACKS <canal> <ultimo-id>). Se um lote não for confirmado, o
+ * canal passa a usar um novo identificador e a numeração recomeça.
+ * Um canal sem mensagens por IDLE_TIMEOUT_MS é fechado, antes que o
+ * destino descarte a sessão correspondente.
+ */
+public class TalkChannel implements Runnable {
+    private static final int MAX_PACKET_SIZE = 1024;
+    private static final int MAX_HEADER_SIZE = 64;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final int ACK_TIMEOUT_MS = 2000;
+    private static final long IDLE_TIMEOUT_MS = 30000;
+
+    private record Pending(String text, int size, CompletableFuture<Boolean> result) {}
+
+    private final BlockingQueue<Pending> queue = new LinkedBlockingQueue<>();
+    private final DatagramSocket socket;
+    private final Consumer<TalkChannel> onClose;
+    private volatile Device target;
+    private String channelId = newChannelId();
+    private long nextId = 1;
+    private boolean closed = false;
+
+    TalkChannel(Device target, Consumer<TalkChannel> onClose) throws SocketException {
+        this.target = target;
+        this.onClose = onClose;
+        this.socket = new DatagramSocket();
+    }
+
+    Device getTarget() {
+        return target;
+    }
+
+    void updateTarget(Device device) {
+        this.target = device;
+    }
+
+    /**
+     * Enfileira a mensagem sem bloquear. O resultado é concluído com true
+     * quando o lote que a contém for confirmado. Retorna null se o canal já
+     * foi fechado por inatividade.
+     */
+    public synchronized CompletableFuture<Boolean> send(String text) {
+        int size = text.getBytes().length;
+        if (size > MAX_PACKET_SIZE - MAX_HEADER_SIZE) {
+            throw new IllegalArgumentException("mensagem excede o tamanho máximo do pacote");
+        }
+        if (closed) return null;
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        queue.add(new Pending(text, size, result));
+        return result;
+    }
+
+    @Override
+    public void run() {
+        List<Pending> batch = new ArrayList<>();
+        while (true) {
+            try {
+                Pending first = queue.poll(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    if (closeIfIdle()) return;
+                    continue;
+                }
+                batch.add(first);
+                deliver(batch);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                Log.error("[Talk] Erro ao enviar para %s: %s", target.getName(), e.getMessage());
+                batch.forEach(p -> p.result().complete(false));
+                resetChannel();
+            }
+            batch.clear();
+        }
+    }
+
+    private boolean closeIfIdle() {
+        synchronized (this) {
+            if (!queue.isEmpty()) return false;
+            closed = true;
+        }
+        Log.debug("[Talk] Canal com %s fechado por inatividade", target.getName());
+        socket.close();
+        onClose.accept(this);
+        return true;
+    }
+
+    private void deliver(List<Pending> batch) throws IOException {
+        StringBuilder message = new StringBuilder(Protocol.TALKS).append(' ').append(channelId);
+        int packetSize = message.length();
+        long firstId = nextId;
+
+        packetSize += entrySize(batch.get(0));
+        appendEntry(message, batch.get(0));
+
+        // Agrupa o que já estiver na fila enquanto couber no datagrama
+        Pending next;
+        while ((next = queue.peek()) != null && packetSize + entrySize(next) <= MAX_PACKET_SIZE) {
+            queue.poll();
+            batch.add(next);
+            packetSize += entrySize(next);
+            appendEntry(message, next);
+        }
+
+        long lastId = nextId - 1;
+        byte[] data = message.toString().getBytes();
+
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            Device device = target;
+            socket.send(new DatagramPacket(data, data.length, device.getIpAddress(), device.getPort()));
+            if (Log.isDebugEnabled())
+                Log.debug("[Talk] Lote %d-%d enviado a %s (%d mensagens, tentativa %d)",
+                        firstId, lastId, device.getName(), batch.size(), attempt);
+
+            if (waitForAck(lastId)) {
+                batch.forEach(p -> p.result().complete(true));
+                return;
+            }
+            Log.info("[Talk] Timeout aguardando ACK de %s...", device.getName());
+        }
+
+        Log.warn("[Talk] Falha ao receber ACK de %s após %d tentativas.", target.getName(), MAX_ATTEMPTS);
+        batch.forEach(p -> p.result().complete(false));
+        resetChannel();
+    }
+
+    // O destino pode não ter recebido o lote; recomeça a numeração em um novo canal
+    private void resetChannel() {
+        channelId = newChannelId();
+        nextId = 1;
+    }
+
+    private void appendEntry(StringBuilder message, Pending pending) {
+        message.append(' ').append(nextId++)
+                .append(' ').append(pending.text().length())
+                .append(' ').append(pending.text());
+    }
+
+    // ' ' + id + ' ' + tamanho + ' ' + mensagem, para o próximo id a ser atribuído
+    private int entrySize(Pending pending) {
+        return 3 + Long.toString(nextId).length()
+                + Integer.toString(pending.text().length()).length() + pending.size();
+    }
+
+    private boolean waitForAck(long lastId) throws IOException {
+        long deadline = System.currentTimeMillis() + ACK_TIMEOUT_MS;
+        byte[] buffer = new byte[1024];
+        String prefix = Protocol.ACKS + " " + channelId + " ";
+
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) return false;
+            socket.setSoTimeout((int) remaining);
+
+            DatagramPacket response = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(response);
+            } catch (SocketTimeoutException e) {
+                return false;
+            }
+
+            // ACKs atrasados ou de outro canal são ignorados
+            String reply = new String(response.getData(), 0, response.getLength()).trim();
+            if (!reply.startsWith(prefix)) continue;
+            try {
+                if (Long.parseLong(reply.substring(prefix.length())) >= lastId) return true;
+            } catch (NumberFormatException ignored) {}
+        }
+    }
+
+    private static String newChannelId() {
+        return String.valueOf(System.nanoTime());
+    }
+}
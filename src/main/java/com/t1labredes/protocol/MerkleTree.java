@@ -0,0 +1,124 @@
+package com.t1labredes.protocol;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.stream.IntStream;
+
+/**
+ * Árvore de hash (SHA-256) sobre segmentos de tamanho fixo de um arquivo.
+ * As folhas são os hashes de cada segmento; a raiz é enviada no FILE e
+ * cada folha é enviada em um SEGMENT antes dos CHUNKs do segmento.
+ */
+public class MerkleTree {
+    public static final int SEGMENT_SIZE = 64 * 1024;
+
+    public static int segmentCount(long fileSize, int segmentSize) {
+        return (int) ((fileSize + segmentSize - 1) / segmentSize);
+    }
+
+    /**
+     * Calcula o hash de cada segmento do arquivo, em paralelo. Cada segmento
+     * é lido por leitura posicional, sem carregar o arquivo inteiro na memória.
+     */
+    public static String[] computeLeaves(File file, int segmentSize) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long fileSize = channel.size();
+            int count = segmentCount(fileSize, segmentSize);
+            String[] leaves = new String[count];
+
+            try {
+                IntStream.range(0, count).parallel().forEach(i -> {
+                    long offset = (long) i * segmentSize;
+                    int length = (int) Math.min(segmentSize, fileSize - offset);
+                    leaves[i] = hashSegment(channel, offset, length);
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            return leaves;
+        }
+    }
+
+    /**
+     * Combina as folhas dois a dois até a raiz. Um nó sem par sobe
+     * inalterado para o nível seguinte.
+     */
+    public static String computeRoot(String[] leaves) {
+        if (leaves.length == 0) return toHex(newDigest().digest());
+
+        byte[][] level = new byte[leaves.length][];
+        for (int i = 0; i < leaves.length; i++) {
+            if (leaves[i] == null) return null;
+            level[i] = fromHex(leaves[i]);
+        }
+
+        while (level.length > 1) {
+            byte[][] next = new byte[(level.length + 1) / 2][];
+            for (int i = 0; i < next.length; i++) {
+                int left = 2 * i;
+                if (left + 1 < level.length) {
+                    MessageDigest digest = newDigest();
+                    digest.update(level[left]);
+                    digest.update(level[left + 1]);
+                    next[i] = digest.digest();
+                } else {
+                    next[i] = level[left];
+                }
+            }
+            level = next;
+        }
+        return toHex(level[0]);
+    }
+
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+
+    private static byte[] fromHex(String hex) {
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+
+    private static String hashSegment(FileChannel channel, long offset, int length) {
+        MessageDigest digest = newDigest();
+        ByteBuffer buffer = ByteBuffer.allocate(Math.min(length, 8192));
+        long position = offset;
+        long end = offset + length;
+
+        try {
+            while (position < end) {
+                buffer.clear();
+                buffer.limit((int) Math.min(buffer.capacity(), end - position));
+                int read = channel.read(buffer, position);
+                if (read == -1) break;
+                buffer.flip();
+                digest.update(buffer);
+                position += read;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return toHex(digest.digest());
+    }
+}
@@ -3,9 +3,12 @@ package com.t1labredes.protocol;
 public class Protocol {
     public static final String HEARTBEAT = "HEARTBEAT";
     public static final String TALK = "TALK";
+    public static final String TALKS = "TALKS";
     public static final String FILE = "FILE";
+    public static final String SEGMENT = "SEGMENT";
     public static final String CHUNK = "CHUNK";
     public static final String END = "END";
     public static final String ACK = "ACK";
+    public static final String ACKS = "ACKS";
     public static final String NACK = "NACK";
 }
@@ -1,5 +1,8 @@
 package com.t1labredes.server;
 
+import com.t1labredes.log.Log;
+import com.t1labredes.protocol.MerkleTree;
+
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.security.MessageDigest;
@@ -13,25 +16,140 @@ public class FileReceiver {
     private int expectedSeq = 0;
     private boolean validated = false;
 
+    // Verificação por segmento (desativada quando segmentSize == 0)
+    private final long fileSize;
+    private final int segmentSize;
+    private final String merkleRoot;
+    private final String[] segmentHashes;
+    private MessageDigest segmentDigest;
+    private int segmentIndex = 0;
+    private int segmentStartSeq = 0;
+    private long segmentBytes = 0;
+    private int verifiedSegments = 0;
+    private int pendingRepair = -1;
+    private final int[] rejections;
+
 
     public FileReceiver(String fileName) throws Exception {
+        this(fileName, 0, 0, null);
+    }
+
+    public FileReceiver(String fileName, long fileSize, int segmentSize, String merkleRoot) throws Exception {
         String clientId = System.getenv("CLIENT_ID");
         this.fileName = "received_" + clientId + "_" + fileName;
         this.outputStream = new FileOutputStream("/app/files/" + this.fileName, false);
+        this.fileSize = fileSize;
+        this.segmentSize = segmentSize;
+        this.merkleRoot = merkleRoot;
+        this.segmentHashes = new String[segmentSize > 0 ? MerkleTree.segmentCount(fileSize, segmentSize) : 0];
+        this.rejections = new int[segmentHashes.length];
+        if (segmentSize > 0) this.segmentDigest = MerkleTree.newDigest();
     }
 
     public synchronized boolean writeChunk(int seq, byte[] data) throws Exception {
         if (receivedSeqs.contains(seq)) return false;
         if (seq != expectedSeq) {
-            System.err.printf("[FileReceiver] Chunk fora de ordem (esperado %d, recebido %d)%n", expectedSeq, seq);
+            Log.warn("[FileReceiver] Chunk fora de ordem (esperado %d, recebido %d)", expectedSeq, seq);
             return false;
         }
+        if (isMissingSegmentHash()) {
+            // Sem o hash não há como verificar o segmento; pede o SEGMENT de novo
+            Log.warn("[FileReceiver] Hash do segmento %d ausente, solicitando SEGMENT", segmentIndex);
+            return false;
+        }
+        if (pendingRepair >= 0) {
+            Log.info("[FileReceiver] Recebendo reenvio do segmento %d", pendingRepair);
+            pendingRepair = -1;
+        }
         receivedSeqs.add(seq);
         outputStream.write(data);
         expectedSeq++;
+        if (segmentSize > 0) updateSegment(seq, data);
+        return true;
+    }
+
+    private void updateSegment(int seq, byte[] data) throws Exception {
+        if (segmentIndex >= segmentHashes.length) return;
+        if (segmentBytes == 0) segmentStartSeq = seq;
+
+        segmentDigest.update(data);
+        segmentBytes += data.length;
+
+        long segmentOffset = (long) segmentIndex * segmentSize;
+        long segmentLength = Math.min(segmentSize, fileSize - segmentOffset);
+        if (segmentBytes < segmentLength) return;
+
+        String expected = segmentHashes[segmentIndex];
+        String actual = MerkleTree.toHex(segmentDigest.digest());
+        segmentBytes = 0;
+
+        if (expected.equals(actual)) {
+            verifiedSegments++;
+            segmentIndex++;
+            return;
+        }
+
+        // Descarta apenas o segmento corrompido e volta a esperar o seu primeiro CHUNK
+        Log.warn("[FileReceiver] Segmento %d corrompido, solicitando reenvio", segmentIndex);
+        outputStream.getChannel().truncate(segmentOffset);
+        int startSeq = segmentStartSeq;
+        receivedSeqs.removeIf(s -> s >= startSeq);
+        expectedSeq = startSeq;
+        pendingRepair = segmentIndex;
+        rejections[segmentIndex]++;
+    }
+
+    private boolean isMissingSegmentHash() {
+        return segmentSize > 0 && pendingRepair < 0
+                && segmentIndex < segmentHashes.length && segmentHashes[segmentIndex] == null;
+    }
+
+    /**
+     * Segmento cujo primeiro CHUNK está sendo recusado por falta do hash, ou -1.
+     */
+    public synchronized int getSegmentAwaitingHash() {
+        return isMissingSegmentHash() ? segmentIndex : -1;
+    }
+
+    /**
+     * Quantas vezes o segmento foi rejeitado por corrupção; permite ao
+     * remetente descartar NACKs atrasados.
+     */
+    public synchronized int getRejectionCount(int segment) {
+        return rejections[segment];
+    }
+
+    public boolean isSegmented() {
+        return segmentSize > 0;
+    }
+
+    public synchronized boolean hasChunk(int seq) {
+        return receivedSeqs.contains(seq);
+    }
+
+    public synchronized boolean setSegmentHash(int index, String hash) {
+        if (index < 0 || index >= segmentHashes.length) return false;
+        segmentHashes[index] = hash;
         return true;
     }
 
+    /**
+     * Índice do segmento aguardando reenvio, ou -1 se não houver.
+     */
+    public synchronized int getPendingRepair() {
+        return pendingRepair;
+    }
+
+    /**
+     * Confere se todos os segmentos foram verificados e se a raiz montada
+     * com os hashes recebidos confere com a anunciada no FILE.
+     */
+    public synchronized boolean verifyMerkleRoot() {
+        if (merkleRoot == null) return true;
+        if (verifiedSegments != segmentHashes.length) return false;
+        return merkleRoot.equals(MerkleTree.computeRoot(segmentHashes));
+    }
+
     public void close() throws Exception {
         outputStream.close();
     }
@@ -1,6 +1,7 @@
 package com.t1labredes.server;
 
 import com.t1labredes.device.Device;
+import com.t1labredes.log.Log;
 import com.t1labredes.protocol.Protocol;
 
 import java.io.IOException;
@@ -16,6 +17,13 @@ public class Server implements Runnable {
     private static Server instance;
     private final Map<String, FileReceiver> fileTransfers = new HashMap<>();
     private final Map<String, Device> activeDevices = new ConcurrentHashMap<>();
+    private final Map<String, TalkSession> talkSessions = new ConcurrentHashMap<>();
+    private final Set<String> recentTalkIds = Collections.newSetFromMap(new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Boolean> eldest) {
+            return size() > 1024;
+        }
+    });
     private DatagramSocket socket;
 
     public static Server getInstance() {
@@ -39,14 +47,14 @@ public class Server implements Runnable {
             socket.setReuseAddress(true);
             socket.bind(new InetSocketAddress(Integer.parseInt(serverPort)));
 
-            System.out.printf("[Server] Inicializado em %s:%d%n",
+            Log.info("[Server] Inicializado em %s:%d",
                     socket.getLocalAddress().getHostAddress(), socket.getLocalPort());
 
             createAliveTimer(deviceName);
             messageLoop();
 
         } catch (IOException e) {
-            System.err.println("[Server] Erro ao iniciar: " + e.getMessage());
+            Log.error("[Server] Erro ao iniciar: " + e.getMessage());
         }
     }
 
@@ -77,21 +85,23 @@ public class Server implements Runnable {
                 while (iterator.hasNext()) {
                     Map.Entry<String, Device> entry = iterator.next();
                     if (entry.getValue().isInactive(10000)) {
-                        System.out.println("[Server] Dispositivo removido por inatividade: " + entry.getKey());
+                        Log.info("[Server] Dispositivo removido por inatividade: " + entry.getKey());
                         iterator.remove();
                     }
                 }
+
+                talkSessions.values().removeIf(session -> session.isInactive(60000));
             }
         }, 0, 5000);
     }
 
     private static boolean checkEnvVariables(String serverPort, String deviceName) {
         if (serverPort == null || serverPort.isBlank()) {
-            System.err.println("[Server] SERVER_PORT não definido!");
+            Log.error("[Server] SERVER_PORT não definido!");
             return false;
         }
         if (deviceName == null || deviceName.isBlank()) {
-            System.err.println("[Server] CLIENT_ID não definido!");
+            Log.error("[Server] CLIENT_ID não definido!");
             return false;
         }
         return true;
@@ -100,17 +110,19 @@ public class Server implements Runnable {
     private void processMessage(DatagramPacket packet, String message) {
         String[] tokens = message.split(" ", 2);
         if (tokens.length < 1) {
-            System.out.println("processMessage: mensagem corrompida");
+            Log.info("processMessage: mensagem corrompida");
             return;
         }
 
         switch (tokens[0]) {
             case Protocol.HEARTBEAT -> handleHeartbeat(packet, tokens[1]);
             case Protocol.TALK -> handleTalk(packet, tokens[1]);
+            case Protocol.TALKS -> handleTalkBatch(packet, tokens[1]);
             case Protocol.FILE -> handleFile(packet, tokens[1]);
+            case Protocol.SEGMENT -> handleSegment(packet, tokens[1]);
             case Protocol.CHUNK -> handleChunk(packet, tokens[1]);
             case Protocol.END -> handleEnd(packet, tokens[1]);
-            default -> System.out.println("[Server] Tipo desconhecido: " + tokens[0]);
+            default -> Log.info("[Server] Tipo desconhecido: " + tokens[0]);
         }
     }
 
@@ -127,7 +139,7 @@ public class Server implements Runnable {
         activeDevices.put(name, device);
         device.updateHeartbeatTime();
 
-        if (isNew) System.out.printf("[Server] Novo dispositivo detectado: %s (%s:%d)%n", name, ip.getHostAddress(), port);
+        if (isNew) Log.info("[Server] Novo dispositivo detectado: %s (%s:%d)", name, ip.getHostAddress(), port);
     }
 
     private void handleTalk(DatagramPacket packet, String body) {
@@ -137,27 +149,99 @@ public class Server implements Runnable {
         String id = parts[0];
         String msg = parts[1];
 
-        System.out.printf("[Server] TALK de %s: %s%n", packet.getAddress().getHostAddress(), msg);
+        if (recentTalkIds.add(packet.getAddress().getHostAddress() + "/" + id))
+            Log.info("[Server] TALK de %s: %s", packet.getAddress().getHostAddress(), msg);
+        else if (Log.isDebugEnabled())
+            Log.debug("[Server] TALK %s duplicado, ignora", id);
+
+        send(packet.getAddress(), packet.getPort(), Protocol.ACK + " " + id);
+    }
+
+    private void handleTalkBatch(DatagramPacket packet, String body) {
+        String[] parts = body.split(" ", 2);
+        if (parts.length < 2) return;
+
+        String channel = parts[0];
+        String entries = parts[1];
+        String host = packet.getAddress().getHostAddress();
+        TalkSession session = talkSessions.computeIfAbsent(host + "/" + channel, key -> new TalkSession());
+
+        // <id> <tamanho> <mensagem>, separados por espaço
+        try {
+            int pos = 0;
+            while (pos < entries.length()) {
+                int idEnd = entries.indexOf(' ', pos);
+                int lengthEnd = entries.indexOf(' ', idEnd + 1);
+                long id = Long.parseLong(entries.substring(pos, idEnd));
+                int length = Integer.parseInt(entries.substring(idEnd + 1, lengthEnd));
+                String msg = entries.substring(lengthEnd + 1, lengthEnd + 1 + length);
+                pos = lengthEnd + 1 + length + 1;
+
+                if (session.accept(id))
+                    Log.info("[Server] TALK de %s: %s", host, msg);
+                else if (Log.isDebugEnabled())
+                    Log.debug("[Server] TALK %s/%d duplicado ou fora de ordem, ignora", channel, id);
+            }
+        } catch (RuntimeException e) {
+            Log.error("[Server] Erro TALKS: " + e.getMessage());
+        }
 
-        sendAck(packet.getAddress(), packet.getPort(), id);
+        send(packet.getAddress(), packet.getPort(),
+                Protocol.ACKS + " " + channel + " " + session.getLastDelivered());
     }
 
     private void handleFile(DatagramPacket packet, String body) {
-        String[] parts = body.split(" ", 3);
+        String[] parts = body.split(" ");
         if (parts.length < 3) return;
 
         String id = parts[0];
         String fileName = parts[1];
         String fileSize = parts[2];
 
-        System.out.printf("[Server] FILE recebido: %s (%s bytes)%n", fileName, fileSize);
+        Log.info("[Server] FILE recebido: %s (%s bytes)", fileName, fileSize);
 
-        sendAck(packet.getAddress(), packet.getPort(), id);
+        send(packet.getAddress(), packet.getPort(), Protocol.ACK + " " + id);
 
         try {
-            fileTransfers.put(id, new FileReceiver(fileName));
+            // FILE <id> <nome> <tamanho> [<tamanho-segmento> <raiz>]
+            if (parts.length >= 5) {
+                fileTransfers.put(id, new FileReceiver(fileName, Long.parseLong(fileSize),
+                        Integer.parseInt(parts[3]), parts[4]));
+            } else {
+                fileTransfers.put(id, new FileReceiver(fileName));
+            }
         } catch (Exception e) {
-            System.err.println("[Server] Erro FileReceiver: " + e.getMessage());
+            Log.error("[Server] Erro FileReceiver: " + e.getMessage());
+        }
+    }
+
+    private void handleSegment(DatagramPacket packet, String body) {
+        String[] parts = body.split(" ", 3);
+        if (parts.length < 3) return;
+
+        String id = parts[0];
+        FileReceiver receiver = fileTransfers.get(id);
+        if (receiver == null) return;
+
+        try {
+            int index = Integer.parseInt(parts[1]);
+
+            // Com um reparo pendente, só o SEGMENT do segmento corrompido é aceito
+            int badSegment = receiver.getPendingRepair();
+            if (badSegment >= 0 && index != badSegment) {
+                send(packet.getAddress(), packet.getPort(),
+                        Protocol.NACK + " " + id + " segment " + badSegment
+                                + " " + receiver.getRejectionCount(badSegment));
+                return;
+            }
+
+            if (!receiver.setSegmentHash(index, parts[2].trim())) {
+                Log.error("[Server] SEGMENT %d fora do intervalo (%s)", index, receiver.getFileName());
+                return;
+            }
+            send(packet.getAddress(), packet.getPort(), Protocol.ACK + " " + id + " segment " + index);
+        } catch (NumberFormatException e) {
+            Log.error("[Server] Erro SEGMENT: " + e.getMessage());
         }
     }
 
@@ -174,17 +258,39 @@ public class Server implements Runnable {
             FileReceiver receiver = fileTransfers.get(id);
             if (receiver == null) return;
 
+            // Recusas (fora de ordem, hash do segmento ausente) são registradas pelo FileReceiver
             boolean isNew = receiver.writeChunk(seq, data);
-            if (isNew)
-                System.out.printf("[Server] CHUNK %d salvo (%s)%n", seq, receiver.getFileName());
-            else
-                System.out.printf("[Server] CHUNK %d ja recebido, ignora: (%s)%n", seq, receiver.getFileName());
+            if (isNew) {
+                if (Log.isTraceEnabled()) Log.trace("[Server] CHUNK %d salvo (%s)", seq, receiver.getFileName());
+            } else if (receiver.hasChunk(seq) && Log.isDebugEnabled()) {
+                Log.debug("[Server] CHUNK %d ja recebido, ignora: (%s)", seq, receiver.getFileName());
+            }
 
+            if (!receiver.isSegmented()) {
+                send(packet.getAddress(), packet.getPort(), Protocol.ACK + " " + id);
+                return;
+            }
+
+            int badSegment = receiver.getPendingRepair();
+            if (badSegment >= 0) {
+                send(packet.getAddress(), packet.getPort(),
+                        Protocol.NACK + " " + id + " segment " + badSegment
+                                + " " + receiver.getRejectionCount(badSegment));
+                return;
+            }
+
+            int missingHash = receiver.getSegmentAwaitingHash();
+            if (missingHash >= 0 && !receiver.hasChunk(seq)) {
+                send(packet.getAddress(), packet.getPort(), Protocol.NACK + " " + id + " hash " + missingHash);
+                return;
+            }
 
-            sendAck(packet.getAddress(), packet.getPort(), id);
+            // O ACK leva o seq para não ser confundido com o de outro CHUNK ou SEGMENT
+            if (receiver.hasChunk(seq))
+                send(packet.getAddress(), packet.getPort(), Protocol.ACK + " " + id + " " + seq);
 
         } catch (Exception e) {
-            System.err.println("[Server] Erro CHUNK: " + e.getMessage());
+            Log.error("[Server] Erro CHUNK: " + e.getMessage());
         }
     }
 
@@ -200,35 +306,39 @@ public class Server implements Runnable {
 
         try {
             if (receiver.isValidated()) {
-                sendAck(packet.getAddress(), packet.getPort(), id);
+                send(packet.getAddress(), packet.getPort(), Protocol.ACK + " " + id);
                 return;
             }
             receiver.close();
+            if (!receiver.verifyMerkleRoot()) {
+                Log.error("[Server] Raiz da árvore de hash inválida (%s)", receiver.getFileName());
+                send(packet.getAddress(), packet.getPort(), Protocol.NACK + " " + id + " merkle root mismatch");
+                fileTransfers.remove(id);
+                return;
+            }
             String localHash = receiver.calculateHash();
 
             if (localHash.equals(receivedHash)) {
-                System.out.printf("[Server] Arquivo %s validado com sucesso.%n", receiver.getFileName());
-                sendAck(packet.getAddress(), packet.getPort(), id);
+                Log.info("[Server] Arquivo %s validado com sucesso.", receiver.getFileName());
+                send(packet.getAddress(), packet.getPort(), Protocol.ACK + " " + id);
                 receiver.markValidated();
             } else {
-                System.err.printf("[Server] Hash inválido: %s != %s%n", localHash, receivedHash);
-                String nack = Protocol.NACK + " " + id + " hash mismatch";
-                socket.send(new DatagramPacket(nack.getBytes(), nack.length(), packet.getAddress(), packet.getPort()));
+                Log.error("[Server] Hash inválido: %s != %s", localHash, receivedHash);
+                send(packet.getAddress(), packet.getPort(), Protocol.NACK + " " + id + " hash mismatch");
                 fileTransfers.remove(id);
             }
         } catch (Exception e) {
-            System.err.println("[Server] Erro END: " + e.getMessage());
+            Log.error("[Server] Erro END: " + e.getMessage());
         }
     }
 
-    private void sendAck(InetAddress address, int port, String id) {
+    private void send(InetAddress address, int port, String message) {
         try {
-            String ack = Protocol.ACK + " " + id;
-            byte[] ackData = ack.getBytes();
-            DatagramPacket ackPacket = new DatagramPacket(ackData, ackData.length, address, port);
-            socket.send(ackPacket);
+            byte[] data = message.getBytes();
+            DatagramPacket packet = new DatagramPacket(data, data.length, address, port);
+            socket.send(packet);
         } catch (IOException e) {
-            System.err.println("[Server] Erro ao enviar ACK: " + e.getMessage());
+            Log.error("[Server] Erro ao enviar %s: %s", message.split(" ", 2)[0], e.getMessage());
         }
     }
-}
\ No newline at end of file
+}
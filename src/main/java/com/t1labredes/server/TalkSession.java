@@ -0,0 +1,31 @@
+package com.t1labredes.server;
+
+/**
+ * Estado de recebimento de um canal TALKS: o último id entregue em ordem.
+ * Ids até ele são duplicados e apenas confirmados novamente. A sessão
+ * começa no primeiro id recebido, já que o remetente pode continuar um
+ * canal cuja sessão foi descartada por inatividade ou reinício.
+ */
+public class TalkSession {
+    private long lastDelivered = -1;
+    private volatile long lastActivityTime = System.currentTimeMillis();
+
+    /**
+     * Retorna true se a mensagem é a próxima esperada e deve ser entregue.
+     */
+    public boolean accept(long id) {
+        lastActivityTime = System.currentTimeMillis();
+        if (lastDelivered < 0) lastDelivered = id - 1;
+        if (id != lastDelivered + 1) return false;
+        lastDelivered = id;
+        return true;
+    }
+
+    public long getLastDelivered() {
+        return Math.max(lastDelivered, 0);
+    }
+
+    public boolean isInactive(long timeoutMillis) {
+        return (System.currentTimeMillis() - lastActivityTime) > timeoutMillis;
+    }
+}